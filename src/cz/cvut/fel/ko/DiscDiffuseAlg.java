@@ -1,17 +1,23 @@
 package cz.cvut.fel.ko;
 
 import Jama.Matrix;
+import cz.cvut.fel.ko.node.ApproximateSelection;
 import cz.cvut.fel.ko.node.ContinuousNode;
 import cz.cvut.fel.ko.node.ContinuousModifiedNode;
 import cz.cvut.fel.ko.node.DiscreteNode;
+import cz.cvut.fel.ko.node.GreedySelection;
+import cz.cvut.fel.ko.node.LookaheadSelection;
 import cz.cvut.fel.ko.node.Node;
+import cz.cvut.fel.ko.node.OffHeapDiscreteNode;
+import cz.cvut.fel.ko.node.SelectionStrategy;
+import cz.cvut.fel.ko.node.SubsetSumSelection;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -25,7 +31,18 @@ import java.util.Set;
  */
 public class DiscDiffuseAlg {
 
+    /**
+     * Smallest lambda_2 (relative to lambda_max) still considered non-zero.
+     */
+    private static final double CONNECTIVITY_TOLERANCE = 1e-10;
+    
+    private static final int LOOKAHEAD_DEPTH = 3;
+    private static final int SUBSET_SUM_UNITS = 1024;
+    private static final int SUBSET_SUM_CELLS = 1 << 20;
+
     private final PrintStream out;
+    private Schedule schedule = Schedule.EXACT;
+    private int scheduleIterations = 0;
     
     /**
      * Specifies the version of algorithm to run.
@@ -45,13 +62,33 @@ public class DiscDiffuseAlg {
         CONTINUOUS_MODFIED
     };
     
+    /**
+     * Specifies how the step sizes of standard iterations are chosen.
+     */
+    public enum Schedule {
+        /**
+         * One iteration per distinct non-zero laplacian eigenvalue (needs whole spectrum).
+         */
+        EXACT,
+        /**
+         * Chebyshev nodes spread between lambda_2 and lambda_max (needs extreme eigenvalues only).
+         */
+        CHEBYSHEV,
+        /**
+         * Balancing flow is computed on coarsened graph (needs spectrum of the coarsest 
+         * graph only) and the tasks follow it in plain processEdge rounds.
+         */
+        MULTILEVEL
+    };
+    
     /**
      * Print program usage (arguments)
      * 
      * @param out 
      */
     public static void printUsage(PrintStream out) {
-        out.println("Argumants: <inputFilePath> [\"cont\"|\"cont-mod\">]");
+        out.println("Argumants: <inputFilePath> [\"cont\"|\"cont-mod\"] [\"cheb\"[=<iterations>]|\"multilevel\"] [\"offheap\"[=<mappedFilePath>]]"
+                + " [\"select=\"(\"greedy\"|\"lookahead\"[:<depth>]|\"dp\"[:<units>]|\"approx\")]");
     }
     
     /**
@@ -59,25 +96,67 @@ public class DiscDiffuseAlg {
      * @throws java.io.IOException
      */
     public static void main(String[] args) throws IOException {
-        if (args.length < 1 || args.length > 2) {
+        if (args.length < 1) {
             printUsage(System.err);
             System.exit(1);
         }
+        DiscDiffuseAlg alg = new DiscDiffuseAlg(System.out);
         Version v = Version.DISCRETE;
-        if (args.length == 2) {
-            switch (args[1].trim().toLowerCase()) {
+        boolean offHeap = false;
+        String arenaPath = null; // null for a temporary file
+        SelectionStrategy selection = new GreedySelection();
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].trim().split("=", 2);
+            option[0] = option[0].toLowerCase();
+            switch (option[0]) {
                 case "cont":
                     v = Version.CONTINUOUS;
                     break;
                 case "cont-mod":
                     v = Version.CONTINUOUS_MODFIED;
                     break;
+                case "cheb":
+                    int iterations = option.length == 2 ? parsePositiveInt(option[1]) : 0;
+                    if (iterations < 0) {
+                        printUsage(System.err);
+                        System.exit(1);
+                    }
+                    alg.setSchedule(Schedule.CHEBYSHEV, iterations);
+                    break;
+                case "multilevel":
+                    alg.setSchedule(Schedule.MULTILEVEL, 0);
+                    break;
+                case "offheap":
+                    offHeap = true;
+                    arenaPath = option.length == 2 ? option[1].trim() : null;
+                    if (arenaPath != null && arenaPath.isEmpty()) {
+                        printUsage(System.err);
+                        System.exit(1);
+                    }
+                    break;
+                case "select":
+                    selection = option.length == 2 ? parseSelectionStrategy(option[1]) : null;
+                    if (selection == null) {
+                        printUsage(System.err);
+                        System.exit(1);
+                    }
+                    break;
                 default:
                     printUsage(System.err);
                     System.exit(1);
             }
         }
-        DiscDiffuseAlg alg = new DiscDiffuseAlg(System.out);
+        
+        // only discrete nodes store tasks, the file is not touched otherwise
+        if (offHeap && v != Version.DISCRETE) {
+            System.err.println("\"offheap\" can be used only with the discrete version");
+            printUsage(System.err);
+            System.exit(1);
+        }
+        TaskArena arena = null;
+        if (offHeap) {
+            arena = arenaPath == null ? new TaskArena() : new TaskArena(Paths.get(arenaPath));
+        }
         
         // load input file
         BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(args[0])));
@@ -89,7 +168,7 @@ public class DiscDiffuseAlg {
         for (int i = 0; i < nodeCnt; i++) {
             switch(v) {
                 case DISCRETE:
-                    nodes[i] = new DiscreteNode();
+                    nodes[i] = arena == null ? new DiscreteNode() : new OffHeapDiscreteNode(arena);
                     break;
                 case CONTINUOUS:
                     nodes[i] = new ContinuousNode();
@@ -98,19 +177,99 @@ public class DiscDiffuseAlg {
                     nodes[i] = new ContinuousModifiedNode();
                     break;
             }
-            for(String s: br.readLine().split(" ")) {
-                if (s.length() > 0) {
-                    double load = Double.parseDouble(s);
-                    biggestTask = Math.max(biggestTask, load);
-                    nodes[i].addTask(Task.createTask(load));
-                }
-            }
+            nodes[i].setSelectionStrategy(selection);
+            biggestTask = Math.max(biggestTask, readTasks(br, nodes[i]));
         }
         // parse adjacency matrix
         Matrix adjMat = Matrix.read(br);
         
         // run the simulation
-        alg.simulateDiffuseAlgorithm(nodes, adjMat, biggestTask);
+        try {
+            alg.simulateDiffuseAlgorithm(nodes, adjMat, biggestTask);
+        } catch (IllegalArgumentException ex) {
+            // input the selected schedule cannot handle
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+        
+        if (arena != null) {
+            System.out.println("Off-heap tasks: " + arena.getTaskCount() + " (" + arena.getReservedBytes() + " bytes mapped" 
+                    + (arena.isTemporary() ? " in temporary file" : "") + ")");
+            arena.close();
+        }
+    }
+    
+    /**
+     * Parses positive integer option value.
+     * 
+     * @param value
+     * @return The number, or -1 if the value is not a positive integer.
+     */
+    private static int parsePositiveInt(String value) {
+        try {
+            int result = Integer.parseInt(value);
+            return result > 0 ? result : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Creates knapsack heuristic from its command line name, optionally 
+     * followed by colon and its parameter.
+     * 
+     * @param name
+     * @return The strategy, or null for unknown name or invalid parameter.
+     */
+    private static SelectionStrategy parseSelectionStrategy(String name) {
+        String[] parts = name.toLowerCase().split(":", 2);
+        try {
+            switch (parts[0]) {
+                case "greedy":
+                    return new GreedySelection();
+                case "lookahead":
+                    return new LookaheadSelection(parts.length == 2 ? Integer.parseInt(parts[1]) : LOOKAHEAD_DEPTH);
+                case "dp":
+                    return new SubsetSumSelection(parts.length == 2 ? Integer.parseInt(parts[1]) : SUBSET_SUM_UNITS, 
+                            SUBSET_SUM_CELLS);
+                case "approx":
+                    return new ApproximateSelection();
+                default:
+                    return null;
+            }
+        } catch (IllegalArgumentException ex) {
+            // invalid or non-positive parameter
+            return null;
+        }
+    }
+    
+    /**
+     * Reads one line of task sizes and adds the tasks to given node. 
+     * The line is processed token by token, so it is never held in memory whole.
+     * 
+     * @param br
+     * @param node
+     * @return Size of the biggest task read.
+     * @throws IOException 
+     */
+    private static double readTasks(BufferedReader br, Node node) throws IOException {
+        double biggestTask = 0;
+        StringBuilder token = new StringBuilder();
+        int c;
+        do {
+            c = br.read();
+            if (c == -1 || c == '\n' || Character.isWhitespace(c)) {
+                if (token.length() > 0) {
+                    double load = Double.parseDouble(token.toString());
+                    biggestTask = Math.max(biggestTask, load);
+                    node.addTask(Task.createTask(load));
+                    token.setLength(0);
+                }
+            } else {
+                token.append((char) c);
+            }
+        } while (c != -1 && c != '\n');
+        return biggestTask;
     }
 
     /**
@@ -122,6 +281,18 @@ public class DiscDiffuseAlg {
         this.out = out;
     }    
     
+    /**
+     * Selects the schedule of standard iterations.
+     * 
+     * @param schedule
+     * @param iterations Number of standard iterations for the Chebyshev schedule, 
+     * 0 derives it from the condition number and the task size. Ignored by other schedules.
+     */
+    public void setSchedule(Schedule schedule, int iterations) {
+        this.schedule = schedule;
+        this.scheduleIterations = iterations;
+    }
+    
     /**
      * Runs the algorithm for given input.
      * 
@@ -132,6 +303,11 @@ public class DiscDiffuseAlg {
      */
     public void simulateDiffuseAlgorithm(Node[] nodes, Matrix adjMat, double biggestTask) throws IOException {
         // initialize variables
+        long simulationStart = System.nanoTime();
+        long selectionTime = 0; // nanoseconds spent selecting tasks to send
+        for(Node n: nodes) {
+            selectionTime -= n.getSelectionTime();
+        }
         double totalLoad = 0;
         for(Node n: nodes) {
             totalLoad += n.getLoad();
@@ -159,7 +335,60 @@ public class DiscDiffuseAlg {
         }
         
         // compute eigenvalues from the laplacian matrix
-        double[] eigvals = orderEigenvalues(adjMat.eig().getRealEigenvalues());
+        long spectrumStart = System.nanoTime();
+        double[] eigvals;
+        String scheduleInfo;
+        if (schedule == Schedule.CHEBYSHEV) {
+            SpectrumEstimator estimator = new SpectrumEstimator(adjMat);
+            double[] extremes = estimator.extremeEigenvalues();
+            if (extremes.length == 0) {
+                eigvals = extremes;
+                scheduleInfo = "chebyshev (no edges)";
+            } else {
+                int iterations = scheduleIterations;
+                if (iterations <= 0) {
+                    // aim for the remaining imbalance of the size of one task,
+                    // but never run more iterations than the exact schedule could
+                    double imbalance = 0;
+                    for(Node n: nodes) {
+                        double deviation = n.getLoad() - totalLoad / nodes.length;
+                        imbalance += deviation * deviation;
+                    }
+                    imbalance = Math.sqrt(imbalance);
+                    iterations = imbalance <= biggestTask ? 0 : Math.min(nodes.length - 1, 
+                            chebyshevIterations(extremes[0], extremes[1], biggestTask / imbalance));
+                }
+                double[] exact = estimator.getExactEigenvalues();
+                exact = exact == null || scheduleIterations > 0 ? null : orderEigenvalues(exact);
+                if (exact != null && exact.length <= iterations) {
+                    // Lanczos found the whole spectrum, exact steps balance better in no more iterations,
+                    // but long schedules need the Leja order to keep the intermediate loads feasible
+                    eigvals = keepsLoadsNonNegative(nodes, adjMat, exact) ? exact : lejaOrder(exact);
+                    scheduleInfo = "chebyshev found exact spectrum (" + eigvals.length + " distinct eigenvalues)";
+                } else {
+                    eigvals = chebyshevEigenvalues(extremes[0], extremes[1], iterations);
+                    scheduleInfo = "chebyshev (lambda_2 " + extremes[0] + ", lambda_max " + extremes[1] + ")";
+                }
+            }
+        } else if (schedule == Schedule.MULTILEVEL) {
+            // the balancing flow is left on the edges as error to correct
+            MultilevelDiffusion multilevel = new MultilevelDiffusion(adjMat);
+            double[] loads = new double[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                loads[i] = nodes[i].getLoad();
+            }
+            double[] flows = multilevel.computeFlows(loads);
+            for (int i = 0; i < flows.length; i++) {
+                edges.get(i).setPendingError(flows[i]);
+            }
+            eigvals = new double[0];
+            scheduleInfo = "multilevel (" + multilevel.getLevelCount() + " levels, coarsest graph " 
+                    + multilevel.getCoarsestNodeCount() + " nodes)";
+        } else {
+            eigvals = orderEigenvalues(adjMat.eig().getRealEigenvalues());
+            scheduleInfo = "exact (" + eigvals.length + " distinct eigenvalues)";
+        }
+        double spectrumTime = (System.nanoTime() - spectrumStart) / 1e6;
         
         // do the iterations
         for(int i = 0; i < eigvals.length; i++) {
@@ -184,6 +413,32 @@ public class DiscDiffuseAlg {
                 e.flushTasks();
             }
         }
+        int stdItCnt = eigvals.length;
+        
+        // multilevel flows are carried by refining iterations, while some edge
+        // still owes more than a task and the remaining flow keeps decreasing
+        if (schedule == Schedule.MULTILEVEL) {
+            double remaining = Double.POSITIVE_INFINITY;
+            while (true) {
+                double maxError = 0;
+                double totalError = 0;
+                for(Edge e: edges) {
+                    maxError = Math.max(maxError, Math.abs(e.getPendingError()));
+                    totalError += Math.abs(e.getPendingError());
+                }
+                if (maxError <= biggestTask || totalError >= remaining) {
+                    break;
+                }
+                remaining = totalError;
+                ++stdItCnt;
+                for(Edge e: edges) {
+                    processEdge(e, 0);
+                }
+                for(Edge e: edges) {
+                    e.flushTasks();
+                }
+            }
+        }
         
         // final error correcting iterations
         // exchange load based on the error against the optimal algorithm, until treshold is reached
@@ -216,8 +471,15 @@ public class DiscDiffuseAlg {
 
         // display results
         // iteration count
-        out.println("Iterations: " + (eigvals.length + errCorrItCnt) 
-                + " (" + eigvals.length + " standard, " + errCorrItCnt + " error correcting)");
+        out.println("Iterations: " + (stdItCnt + errCorrItCnt) 
+                + " (" + stdItCnt + " standard, " + errCorrItCnt + " error correcting)");
+        out.println("Schedule: " + scheduleInfo + ", spectrum computed in " + spectrumTime + " ms");
+        for(Node n: nodes) {
+            selectionTime += n.getSelectionTime();
+        }
+        SelectionStrategy selection = nodes.length > 0 ? nodes[0].getSelectionStrategy() : null;
+        out.println("Task selection: " + (selection == null ? "none" : selection) 
+                + ", " + selectionTime / 1e6 + " ms of " + (System.nanoTime() - simulationStart) / 1e6 + " ms total");
         // load sent via edges
         double l2norm = 0;
         double overallLoad = 0;
@@ -262,14 +524,8 @@ public class DiscDiffuseAlg {
             e.setToA(true);
             loadToSend = -loadToSend; // make the load positive
         }
-        // select available tasks so it fits the target load best
-        Collection<Task> tasks = sender.removeTasks(loadToSend);
-        double loadSent = 0;
-        for (Task t: tasks) {
-            loadSent += t.getSize();
-        }
-        // load them into the edge
-        e.addTasksToSend(tasks);
+        // select available tasks so it fits the target load best and load them into the edge
+        double loadSent = sender.sendTasks(loadToSend, e);
         // update the error
         e.setPendingError(e.isToA() ? loadSent - loadToSend : loadToSend - loadSent);
     }
@@ -307,6 +563,139 @@ public class DiscDiffuseAlg {
         return result;
     }
     
+    /**
+     * Chebyshev step sizes for the diffusion on a graph whose non-zero laplacian
+     * spectrum lies in [lambda2, lambdaMax]. These replace the exact eigenvalues, 
+     * so the load is only approximately balanced after the standard iterations.
+     * 
+     * @param lambda2 Smallest non-zero eigenvalue.
+     * @param lambdaMax Biggest eigenvalue.
+     * @param iterations Number of steps.
+     * @return Step sizes in Leja order.
+     */
+    public static double[] chebyshevEigenvalues(double lambda2, double lambdaMax, int iterations) {
+        checkConnected(lambda2, lambdaMax);
+        double center = (lambdaMax + lambda2) / 2;
+        double radius = (lambdaMax - lambda2) / 2;
+        double[] nodes = new double[iterations];
+        for(int k = 0; k < iterations; k++) {
+            nodes[k] = center + radius * Math.cos((2*k + 1) * Math.PI / (2*iterations));
+        }
+        return lejaOrder(nodes);
+    }
+    
+    /**
+     * Decides whether the graph is connected based on its extreme eigenvalues.
+     * 
+     * @param lambda2 Smallest non-zero eigenvalue candidate.
+     * @param lambdaMax
+     * @return 
+     */
+    public static boolean isConnected(double lambda2, double lambdaMax) {
+        return lambda2 > CONNECTIVITY_TOLERANCE * lambdaMax;
+    }
+    
+    /**
+     * Number of Chebyshev steps needed to reduce the load imbalance (its l2-norm)
+     * by given factor.
+     * 
+     * @param lambda2 Smallest non-zero eigenvalue.
+     * @param lambdaMax Biggest eigenvalue.
+     * @param tolerance Required ratio of the final and the initial imbalance.
+     * @return 
+     */
+    public static int chebyshevIterations(double lambda2, double lambdaMax, double tolerance) {
+        checkConnected(lambda2, lambdaMax);
+        // residual after k steps is bounded by 2 * ((sqrt(cond) - 1) / (sqrt(cond) + 1)) ^ k
+        double sqrtCond = Math.sqrt(lambdaMax / lambda2);
+        double rate = Math.log((sqrtCond + 1) / (sqrtCond - 1));
+        if (Double.isInfinite(rate)) {
+            return 1;
+        }
+        return Math.max(1, (int) Math.ceil(Math.log(2 / tolerance) / rate));
+    }
+    
+    private static void checkConnected(double lambda2, double lambdaMax) {
+        if (!isConnected(lambda2, lambdaMax)) {
+            throw new IllegalArgumentException("Graph has to be connected for the Chebyshev schedule (lambda_2 = " 
+                    + lambda2 + "), use the exact schedule instead");
+        }
+    }
+    
+    /**
+     * Checks that continuous diffusion with given step sizes never takes more
+     * load from a node than it has. A discrete node cannot send tasks it does
+     * not have and the error correction does not recover from such schedules.
+     * 
+     * @param nodes
+     * @param laplacian
+     * @param eigvals Step sizes in the order of use.
+     * @return 
+     */
+    private static boolean keepsLoadsNonNegative(Node[] nodes, Matrix laplacian, double[] eigvals) {
+        List<int[]> edges = new ArrayList<>();
+        for(int i = 0; i < nodes.length-1; i++) {
+            for(int j = i+1; j < nodes.length; j++) {
+                if (laplacian.get(i, j) != 0) {
+                    edges.add(new int[] {i, j});
+                }
+            }
+        }
+        double[] loads = new double[nodes.length];
+        for(int i = 0; i < nodes.length; i++) {
+            loads[i] = nodes[i].getLoad();
+        }
+        double[] flows = new double[edges.size()];
+        for(double eig: eigvals) {
+            for(int k = 0; k < flows.length; k++) {
+                flows[k] = (loads[edges.get(k)[0]] - loads[edges.get(k)[1]]) / eig;
+            }
+            for(int k = 0; k < flows.length; k++) {
+                loads[edges.get(k)[0]] -= flows[k];
+                loads[edges.get(k)[1]] += flows[k];
+            }
+            for(double l: loads) {
+                if (l < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Leja ordering: each next step size maximizes the product of distances 
+     * to the already used ones. This keeps the intermediate loads bounded 
+     * even for long schedules, where the center-started ordering overshoots.
+     * 
+     * @param values
+     * @return 
+     */
+    public static double[] lejaOrder(double[] values) {
+        double[] result = values.clone();
+        // logarithm of the product of distances to the already placed values
+        double[] logDist = new double[result.length];
+        for(int k = 0; k < result.length; k++) {
+            // start with the biggest value
+            int best = k;
+            for(int i = k+1; i < result.length; i++) {
+                if (k == 0 ? Math.abs(result[i]) > Math.abs(result[best]) : logDist[i] > logDist[best]) {
+                    best = i;
+                }
+            }
+            double tmp = result[k];
+            result[k] = result[best];
+            result[best] = tmp;
+            tmp = logDist[k];
+            logDist[k] = logDist[best];
+            logDist[best] = tmp;
+            for(int i = k+1; i < result.length; i++) {
+                logDist[i] += Math.log(Math.abs(result[i] - result[k]));
+            }
+        }
+        return result;
+    }
+    
     /**
      * Rounds given double to specified number of digits.
      * Meant only for reasonably small numbers: value * (10 ^ digitCount)
@@ -16,6 +16,7 @@ public class Edge {
     private double overallLoad = 0;
     
     private final Collection<Task> tasks = new ArrayList<>();
+    private TaskChain taskChain; // off-heap tasks, created with the first ones sent
     private boolean toA;
 
     /**
@@ -90,18 +91,32 @@ public class Edge {
         this.tasks.addAll(tasks);
     }
     
+    /**
+     * Send off-heap tasks to this edge. The chain is emptied.
+     * To deliver them to target node, use flushTasks().
+     * 
+     * @param tasks 
+     */
+    public void addTasksToSend(TaskChain tasks) {
+        if (taskChain == null) {
+            taskChain = new TaskChain(tasks.getArena());
+        }
+        taskChain.addAll(tasks);
+    }
+    
     /**
      * Delivers all tasks sent via this edge to target node.
      */
     public void flushTasks() {
-        if (toA) {
-            a.addTasks(tasks);
-        } else {
-            b.addTasks(tasks);
-        }
+        Node target = toA ? a : b;
+        target.addTasks(tasks);
         for(Task t: tasks) {
             overallLoad += t.getSize();
         }
         tasks.clear();
+        if (taskChain != null && !taskChain.isEmpty()) {
+            overallLoad += taskChain.getLoad();
+            target.addTasks(taskChain);
+        }
     }
 }
@@ -0,0 +1,318 @@
+package cz.cvut.fel.ko;
+
+import Jama.Matrix;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes balancing flow of a graph by the coarsen-diffuse-refine scheme.
+ *
+ * The graph is repeatedly coarsened by contracting a matching until it is
+ * small enough. Continuous diffusion with the exact (and cheap) spectrum
+ * balances the coarsest graph, where each node should end up with load
+ * proportional to the number of original nodes it represents. Flow of each
+ * coarse edge is then split among the finer edges it was contracted from and
+ * the matched edges inside clusters get the flow which splits the cluster
+ * load between its two halves.
+ *
+ * The resulting flow balances the original graph exactly (in continuous
+ * sense), discrete tasks are moved along it by fine level iterations.
+ *
+ * Matchings of graphs with hubs (e.g. stars) shrink the graph very little,
+ * so coarsening may stop while the graph is still big. The dense spectrum is
+ * then not cheap and the coarsest graph is diffused by Chebyshev steps from
+ * the estimated extreme eigenvalues instead.
+ */
+public class MultilevelDiffusion {
+
+    /**
+     * Coarsening stops once the graph has at most this many nodes.
+     */
+    private static final int COARSEST_SIZE = 32;
+    /**
+     * Coarsening stops if a matching does not shrink the graph at least by this ratio.
+     */
+    private static final double MIN_SHRINK = 0.9;
+    /**
+     * Relative residual of the Chebyshev diffusion on a coarsest graph bigger than COARSEST_SIZE.
+     */
+    private static final double CHEBYSHEV_RESIDUAL = 1e-9;
+
+    private final List<Level> levels = new ArrayList<>();
+
+    /**
+     * One graph in the hierarchy.
+     */
+    private static class Level {
+        final int nodeCnt;
+        final int[] weight; // number of original nodes represented by each node
+        final int[][] edges; // endpoints of each edge, first one has lower index
+        int[] toCoarse; // node index in the next coarser level
+        int[] edgeToCoarse; // edge index in the next coarser level, -1 for contracted edges
+
+        Level(int nodeCnt, int[] weight, int[][] edges) {
+            this.nodeCnt = nodeCnt;
+            this.weight = weight;
+            this.edges = edges;
+        }
+    }
+
+    /**
+     * Builds the hierarchy of coarser graphs. Edges of the finest level
+     * follow the upper triangle of the matrix in row order, the same order
+     * the simulation creates its edges in.
+     *
+     * @param laplacian Laplacian (or adjacency) matrix of the graph, only non-zero pattern is used.
+     */
+    public MultilevelDiffusion(Matrix laplacian) {
+        int n = laplacian.getRowDimension();
+        List<int[]> edges = new ArrayList<>();
+        for(int i = 0; i < n-1; i++) {
+            for(int j = i+1; j < n; j++) {
+                if (laplacian.get(i, j) != 0) {
+                    edges.add(new int[] {i, j});
+                }
+            }
+        }
+        int[] weight = new int[n];
+        for(int i = 0; i < n; i++) {
+            weight[i] = 1;
+        }
+        Level level = new Level(n, weight, edges.toArray(new int[edges.size()][]));
+        levels.add(level);
+
+        while (level.nodeCnt > COARSEST_SIZE) {
+            Level coarse = coarsen(level);
+            if (coarse.nodeCnt > MIN_SHRINK * level.nodeCnt) {
+                level.toCoarse = null;
+                level.edgeToCoarse = null;
+                break;
+            }
+            levels.add(coarse);
+            level = coarse;
+        }
+    }
+
+    /**
+     * Number of graphs in the hierarchy including the original one.
+     *
+     * @return
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * Number of nodes of the coarsest graph.
+     *
+     * @return
+     */
+    public int getCoarsestNodeCount() {
+        return levels.get(levels.size()-1).nodeCnt;
+    }
+
+    /**
+     * Computes flow on each edge of the original graph which balances given loads.
+     *
+     * @param loads Load of each node.
+     * @return Flow on each edge, positive means from node with lower index to the one with higher index.
+     */
+    public double[] computeFlows(double[] loads) {
+        // aggregate loads to all levels
+        double[][] levelLoads = new double[levels.size()][];
+        levelLoads[0] = loads.clone();
+        double totalLoad = 0;
+        for(double l: loads) {
+            totalLoad += l;
+        }
+        double averageLoad = totalLoad / loads.length;
+        for(int l = 1; l < levels.size(); l++) {
+            Level fine = levels.get(l-1);
+            levelLoads[l] = new double[levels.get(l).nodeCnt];
+            for(int i = 0; i < fine.nodeCnt; i++) {
+                levelLoads[l][fine.toCoarse[i]] += levelLoads[l-1][i];
+            }
+        }
+
+        // balance the coarsest graph by diffusion
+        int last = levels.size()-1;
+        double[] flows = diffuse(levels.get(last), levelLoads[last], averageLoad);
+
+        // project the flows back to finer levels
+        for(int l = last-1; l >= 0; l--) {
+            flows = refine(levels.get(l), levelLoads[l], flows, averageLoad);
+        }
+        return flows;
+    }
+
+    /**
+     * Contracts greedy matching of the given graph. Each node is paired with
+     * its lightest unmatched neighbor, so the clusters stay of similar size.
+     */
+    private static Level coarsen(Level fine) {
+        List<List<Integer>> neighbors = new ArrayList<>();
+        for(int i = 0; i < fine.nodeCnt; i++) {
+            neighbors.add(new ArrayList<>());
+        }
+        for(int[] e: fine.edges) {
+            neighbors.get(e[0]).add(e[1]);
+            neighbors.get(e[1]).add(e[0]);
+        }
+
+        int[] toCoarse = new int[fine.nodeCnt];
+        for(int i = 0; i < fine.nodeCnt; i++) {
+            toCoarse[i] = -1;
+        }
+        List<Integer> coarseWeight = new ArrayList<>();
+        for(int i = 0; i < fine.nodeCnt; i++) {
+            if (toCoarse[i] != -1) {
+                continue;
+            }
+            int mate = -1;
+            for(int j: neighbors.get(i)) {
+                if (toCoarse[j] == -1 && (mate == -1 || fine.weight[j] < fine.weight[mate])) {
+                    mate = j;
+                }
+            }
+            toCoarse[i] = coarseWeight.size();
+            if (mate == -1) {
+                coarseWeight.add(fine.weight[i]);
+            } else {
+                toCoarse[mate] = toCoarse[i];
+                coarseWeight.add(fine.weight[i] + fine.weight[mate]);
+            }
+        }
+
+        // merge parallel edges, drop the contracted ones
+        int coarseCnt = coarseWeight.size();
+        Map<Long, Integer> edgeIndex = new HashMap<>();
+        List<int[]> coarseEdges = new ArrayList<>();
+        int[] edgeToCoarse = new int[fine.edges.length];
+        for(int k = 0; k < fine.edges.length; k++) {
+            int a = toCoarse[fine.edges[k][0]];
+            int b = toCoarse[fine.edges[k][1]];
+            if (a == b) {
+                edgeToCoarse[k] = -1;
+                continue;
+            }
+            int lo = Math.min(a, b);
+            int hi = Math.max(a, b);
+            Integer idx = edgeIndex.get((long) lo * coarseCnt + hi);
+            if (idx == null) {
+                idx = coarseEdges.size();
+                edgeIndex.put((long) lo * coarseCnt + hi, idx);
+                coarseEdges.add(new int[] {lo, hi});
+            }
+            edgeToCoarse[k] = idx;
+        }
+
+        fine.toCoarse = toCoarse;
+        fine.edgeToCoarse = edgeToCoarse;
+        int[] weight = new int[coarseCnt];
+        for(int i = 0; i < coarseCnt; i++) {
+            weight[i] = coarseWeight.get(i);
+        }
+        return new Level(coarseCnt, weight, coarseEdges.toArray(new int[coarseEdges.size()][]));
+    }
+
+    /**
+     * Runs continuous diffusion on the excess of each node over its share of
+     * the average load. Small graphs use the exact schedule, big ones the
+     * Chebyshev one.
+     */
+    private static double[] diffuse(Level level, double[] loads, double averageLoad) {
+        double[] excess = new double[level.nodeCnt];
+        for(int i = 0; i < level.nodeCnt; i++) {
+            excess[i] = loads[i] - averageLoad * level.weight[i];
+        }
+        Matrix laplacian = new Matrix(level.nodeCnt, level.nodeCnt);
+        for(int[] e: level.edges) {
+            laplacian.set(e[0], e[1], -1);
+            laplacian.set(e[1], e[0], -1);
+            laplacian.set(e[0], e[0], laplacian.get(e[0], e[0]) + 1);
+            laplacian.set(e[1], e[1], laplacian.get(e[1], e[1]) + 1);
+        }
+        double[] eigvals = level.nodeCnt <= COARSEST_SIZE
+                ? DiscDiffuseAlg.orderEigenvalues(laplacian.eig().getRealEigenvalues())
+                : estimatedEigenvalues(laplacian);
+
+        double[] flows = new double[level.edges.length];
+        double[] step = new double[level.edges.length];
+        for(double eig: eigvals) {
+            for(int k = 0; k < level.edges.length; k++) {
+                step[k] = (excess[level.edges[k][0]] - excess[level.edges[k][1]]) / eig;
+            }
+            for(int k = 0; k < level.edges.length; k++) {
+                flows[k] += step[k];
+                excess[level.edges[k][0]] -= step[k];
+                excess[level.edges[k][1]] += step[k];
+            }
+        }
+        return flows;
+    }
+
+    /**
+     * Step sizes from the Lanczos estimate of the spectrum, exact if it was
+     * found completely. Disconnected graphs need the dense spectrum.
+     */
+    private static double[] estimatedEigenvalues(Matrix laplacian) {
+        SpectrumEstimator estimator = new SpectrumEstimator(laplacian);
+        double[] extremes = estimator.extremeEigenvalues();
+        if (extremes.length == 0) {
+            return extremes;
+        }
+        if (estimator.getExactEigenvalues() != null) {
+            return DiscDiffuseAlg.lejaOrder(DiscDiffuseAlg.orderEigenvalues(estimator.getExactEigenvalues()));
+        }
+        if (!DiscDiffuseAlg.isConnected(extremes[0], extremes[1])) {
+            return DiscDiffuseAlg.orderEigenvalues(laplacian.eig().getRealEigenvalues());
+        }
+        int iterations = DiscDiffuseAlg.chebyshevIterations(extremes[0], extremes[1], CHEBYSHEV_RESIDUAL);
+        return DiscDiffuseAlg.chebyshevEigenvalues(extremes[0], extremes[1], iterations);
+    }
+
+    /**
+     * Splits flows of the coarser level among the edges of given level and
+     * computes flows of the contracted edges.
+     */
+    private static double[] refine(Level level, double[] loads, double[] coarseFlows, double averageLoad) {
+        // count the edges each coarse edge was merged from
+        int[] multiplicity = new int[coarseFlows.length];
+        for(int c: level.edgeToCoarse) {
+            if (c != -1) {
+                multiplicity[c]++;
+            }
+        }
+
+        // distribute the coarse flows and track the resulting node loads
+        double[] flows = new double[level.edges.length];
+        double[] result = loads.clone();
+        for(int k = 0; k < level.edges.length; k++) {
+            int c = level.edgeToCoarse[k];
+            if (c == -1) {
+                continue;
+            }
+            int a = level.edges[k][0];
+            int b = level.edges[k][1];
+            // coarse edge may be oriented the other way
+            double flow = coarseFlows[c] / multiplicity[c];
+            if (level.toCoarse[a] > level.toCoarse[b]) {
+                flow = -flow;
+            }
+            flows[k] = flow;
+            result[a] -= flow;
+            result[b] += flow;
+        }
+
+        // the contracted edge moves the surplus of one half of the cluster to the other one
+        for(int k = 0; k < level.edges.length; k++) {
+            if (level.edgeToCoarse[k] == -1) {
+                int a = level.edges[k][0];
+                flows[k] = result[a] - averageLoad * level.weight[a];
+            }
+        }
+        return flows;
+    }
+}
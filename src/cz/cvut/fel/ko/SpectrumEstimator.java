@@ -0,0 +1,199 @@
+package cz.cvut.fel.ko;
+
+import Jama.Matrix;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Estimates the extreme non-zero eigenvalues of a graph laplacian without
+ * computing the whole spectrum.
+ *
+ * Lanczos iteration (with full reorthogonalization) is run on the subspace
+ * orthogonal to the constant vector, so the smallest Ritz value approaches
+ * the algebraic connectivity and the biggest one the spectral radius.
+ * Only sparse matrix-vector products are needed, so the cost is driven by
+ * the number of edges rather than the cube of the node count.
+ */
+public class SpectrumEstimator {
+
+    private static final int MAX_STEPS = 200;
+    private static final int CHECK_INTERVAL = 10;
+    private static final double TOLERANCE = 1e-6;
+
+    private final int n;
+    private final int[] rowStart;
+    private final int[] cols;
+    private final double[] vals;
+    private double[] exactEigenvalues = null;
+
+    /**
+     * Prepares sparse representation of the given laplacian.
+     *
+     * @param laplacian
+     */
+    public SpectrumEstimator(Matrix laplacian) {
+        n = laplacian.getRowDimension();
+        rowStart = new int[n+1];
+        List<Integer> colList = new ArrayList<>();
+        List<Double> valList = new ArrayList<>();
+        for(int i = 0; i < n; i++) {
+            rowStart[i] = colList.size();
+            for(int j = 0; j < n; j++) {
+                double v = laplacian.get(i, j);
+                if (v != 0) {
+                    colList.add(j);
+                    valList.add(v);
+                }
+            }
+        }
+        rowStart[n] = colList.size();
+        cols = new int[colList.size()];
+        vals = new double[valList.size()];
+        for(int k = 0; k < cols.length; k++) {
+            cols[k] = colList.get(k);
+            vals[k] = valList.get(k);
+        }
+    }
+
+    /**
+     * Computes the smallest non-zero (lambda_2) and the biggest (lambda_max)
+     * eigenvalue of the laplacian. Graph is expected to be connected.
+     *
+     * @return array {lambda_2, lambda_max}, empty for graphs with less than 2 nodes
+     */
+    public double[] extremeEigenvalues() {
+        if (n < 2) {
+            return new double[0];
+        }
+
+        // random start vector orthogonal to the constant one (eigenvector of 0)
+        Random rnd = new Random(n);
+        double[] q = new double[n];
+        for(int i = 0; i < n; i++) {
+            q[i] = rnd.nextDouble() - 0.5;
+        }
+        removeMean(q);
+        scale(q, 1 / norm(q));
+
+        List<double[]> basis = new ArrayList<>();
+        List<Double> alphas = new ArrayList<>();
+        List<Double> betas = new ArrayList<>();
+        double[] extremes = new double[0];
+        int maxSteps = Math.min(n-1, MAX_STEPS);
+        for(int step = 0; step < maxSteps; step++) {
+            basis.add(q);
+            double[] w = multiply(q);
+            double alpha = dot(q, w);
+            alphas.add(alpha);
+
+            // full reorthogonalization keeps the Ritz values free of ghost copies
+            removeMean(w);
+            for(int pass = 0; pass < 2; pass++) {
+                for(double[] b: basis) {
+                    double c = dot(b, w);
+                    for(int i = 0; i < n; i++) {
+                        w[i] -= c*b[i];
+                    }
+                }
+            }
+            double beta = norm(w);
+
+            // small beta means invariant subspace was found, Ritz values are exact
+            boolean invariant = beta <= TOLERANCE*Math.abs(alpha);
+            boolean exhausted = step == maxSteps-1 || invariant;
+            if (exhausted || (step+1) % CHECK_INTERVAL == 0) {
+                double[] ritz = ritzValues(alphas, betas);
+                double[] current = {ritz[0], ritz[ritz.length-1]};
+                boolean converged = extremes.length > 0
+                        && Math.abs(current[0] - extremes[0]) <= TOLERANCE*current[1]
+                        && Math.abs(current[1] - extremes[1]) <= TOLERANCE*current[1];
+                extremes = current;
+                if (invariant) {
+                    exactEigenvalues = ritz;
+                }
+                if (converged || exhausted) {
+                    break;
+                }
+            }
+            betas.add(beta);
+            q = w;
+            scale(q, 1 / beta);
+        }
+
+        return extremes;
+    }
+
+    /**
+     * Distinct non-zero eigenvalues found by the last call of extremeEigenvalues,
+     * if the Lanczos iteration ended in an invariant subspace. A random start
+     * vector has components in all eigenvectors, so this happens when the graph
+     * has only few distinct eigenvalues (e.g. stars, complete graphs or hypercubes)
+     * and the result is then the whole non-zero spectrum.
+     *
+     * @return Ascending eigenvalues, or null when only the extremes are known.
+     */
+    public double[] getExactEigenvalues() {
+        return exactEigenvalues;
+    }
+
+    /**
+     * Eigenvalues of the Lanczos tridiagonal matrix in ascending order.
+     */
+    private static double[] ritzValues(List<Double> alphas, List<Double> betas) {
+        int k = alphas.size();
+        Matrix t = new Matrix(k, k);
+        for(int i = 0; i < k; i++) {
+            t.set(i, i, alphas.get(i));
+            if (i+1 < k) {
+                t.set(i, i+1, betas.get(i));
+                t.set(i+1, i, betas.get(i));
+            }
+        }
+        double[] eigs = t.eig().getRealEigenvalues();
+        Arrays.sort(eigs);
+        return eigs;
+    }
+
+    private double[] multiply(double[] x) {
+        double[] y = new double[n];
+        for(int i = 0; i < n; i++) {
+            double sum = 0;
+            for(int k = rowStart[i]; k < rowStart[i+1]; k++) {
+                sum += vals[k]*x[cols[k]];
+            }
+            y[i] = sum;
+        }
+        return y;
+    }
+
+    private static void removeMean(double[] x) {
+        double mean = 0;
+        for(double v: x) {
+            mean += v;
+        }
+        mean /= x.length;
+        for(int i = 0; i < x.length; i++) {
+            x[i] -= mean;
+        }
+    }
+
+    private static double dot(double[] x, double[] y) {
+        double sum = 0;
+        for(int i = 0; i < x.length; i++) {
+            sum += x[i]*y[i];
+        }
+        return sum;
+    }
+
+    private static double norm(double[] x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+    private static void scale(double[] x, double factor) {
+        for(int i = 0; i < x.length; i++) {
+            x[i] *= factor;
+        }
+    }
+}
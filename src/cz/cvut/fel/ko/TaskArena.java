@@ -0,0 +1,185 @@
+package cz.cvut.fel.ko;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap storage of tasks. Each task is referred to by a primitive handle
+ * and occupies one fixed size slot with its size and the handle of the next
+ * task in the same {@link TaskChain}, so tasks can be moved between nodes and
+ * edges without any heap allocation.
+ * 
+ * The slots live in a memory-mapped file, a temporary one unless given.
+ * Unlike direct byte buffers, mapped ones are not limited by
+ * MaxDirectMemorySize (which defaults to the heap size), so the number of
+ * tasks is limited only by the disk and address space. Slots of released
+ * tasks are reused.
+ */
+public class TaskArena implements Closeable {
+    
+    /**
+     * Handle denoting no task (end of chain).
+     */
+    public static final long NIL = -1;
+    
+    private static final int SLOT_BYTES = 16; // double size + long next
+    private static final int CHUNK_SHIFT = 20; // 1M tasks (16 MB) per buffer
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final long CHUNK_BYTES = SLOT_BYTES << CHUNK_SHIFT;
+    
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final FileChannel file;
+    private final Path temporaryPath; // deleted on close
+    private long slotCnt = 0;
+    private long freeCnt = 0;
+    private long freeHead = NIL; // released slots chained through their next field
+
+    /**
+     * Creates arena backed by a temporary memory-mapped file, which is deleted on close.
+     * 
+     * @throws IOException 
+     */
+    public TaskArena() throws IOException {
+        this(Files.createTempFile("tasks", ".arena"), true);
+    }
+    
+    /**
+     * Creates arena backed by given memory-mapped file. The file is overwritten.
+     * 
+     * @param path
+     * @throws IOException 
+     */
+    public TaskArena(Path path) throws IOException {
+        this(path, false);
+    }
+    
+    private TaskArena(Path path, boolean temporary) throws IOException {
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, 
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.temporaryPath = temporary ? path : null;
+        if (temporary) {
+            path.toFile().deleteOnExit();
+        }
+    }
+    
+    /**
+     * Stores new task of given size.
+     * 
+     * @param size
+     * @return Handle of the new task.
+     * @throws IOException if the backing file cannot be extended
+     */
+    public long allocate(double size) throws IOException {
+        long handle = freeHead;
+        if (handle != NIL) {
+            freeHead = getNext(handle);
+            --freeCnt;
+            setNext(handle, NIL);
+            chunk(handle).putDouble(offset(handle), size);
+            return handle;
+        }
+        handle = slotCnt;
+        if ((handle >>> CHUNK_SHIFT) == chunks.size()) {
+            ByteBuffer chunk = file.map(FileChannel.MapMode.READ_WRITE, chunks.size() * CHUNK_BYTES, CHUNK_BYTES);
+            chunks.add(chunk.order(ByteOrder.nativeOrder()));
+        }
+        ++slotCnt;
+        setNext(handle, NIL);
+        chunk(handle).putDouble(offset(handle), size);
+        return handle;
+    }
+    
+    /**
+     * Frees the slot of given task, which must not be part of any chain.
+     * The handle may be returned by a later allocation.
+     * 
+     * @param handle 
+     */
+    public void release(long handle) {
+        setNext(handle, freeHead);
+        freeHead = handle;
+        ++freeCnt;
+    }
+    
+    /**
+     * Get size of the task with given handle.
+     * 
+     * @param handle
+     * @return 
+     */
+    public double getSize(long handle) {
+        return chunk(handle).getDouble(offset(handle));
+    }
+    
+    /**
+     * Get handle of the task following given one in its chain.
+     * 
+     * @param handle
+     * @return Handle or NIL.
+     */
+    public long getNext(long handle) {
+        return chunk(handle).getLong(offset(handle) + 8);
+    }
+    
+    /**
+     * Set handle of the task following given one in its chain.
+     * 
+     * @param handle
+     * @param next Handle or NIL.
+     */
+    public void setNext(long handle, long next) {
+        chunk(handle).putLong(offset(handle) + 8, next);
+    }
+    
+    /**
+     * Get number of tasks currently stored.
+     * 
+     * @return 
+     */
+    public long getTaskCount() {
+        return slotCnt - freeCnt;
+    }
+    
+    /**
+     * Get number of bytes reserved for the tasks.
+     * 
+     * @return 
+     */
+    public long getReservedBytes() {
+        return chunks.size() * CHUNK_BYTES;
+    }
+    
+    /**
+     * Denotes whether the backing file is temporary.
+     * 
+     * @return 
+     */
+    public boolean isTemporary() {
+        return temporaryPath != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        file.close();
+        if (temporaryPath != null) {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+    
+    private ByteBuffer chunk(long handle) {
+        return chunks.get((int) (handle >>> CHUNK_SHIFT));
+    }
+    
+    private static int offset(long handle) {
+        return (int) (handle & CHUNK_MASK) * SLOT_BYTES;
+    }
+}
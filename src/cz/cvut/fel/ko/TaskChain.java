@@ -0,0 +1,115 @@
+package cz.cvut.fel.ko;
+
+/**
+ * Ordered group of tasks stored in a {@link TaskArena}, linked through the
+ * arena slots. Only the ends of the chain are kept on heap, so its footprint
+ * does not depend on the number of tasks in it.
+ */
+public class TaskChain {
+    
+    private final TaskArena arena;
+    private long head = TaskArena.NIL;
+    private long tail = TaskArena.NIL;
+    private long count = 0;
+    private double load = 0;
+
+    /**
+     * Creates empty chain of tasks from given arena.
+     * 
+     * @param arena 
+     */
+    public TaskChain(TaskArena arena) {
+        this.arena = arena;
+    }
+
+    public TaskArena getArena() {
+        return arena;
+    }
+    
+    public boolean isEmpty() {
+        return count == 0;
+    }
+    
+    /**
+     * Get number of tasks in this chain.
+     * 
+     * @return 
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * Get total size of tasks in this chain.
+     * 
+     * @return 
+     */
+    public double getLoad() {
+        return load;
+    }
+    
+    /**
+     * Appends task to the end of this chain. The task must not be part of another chain.
+     * 
+     * @param handle 
+     */
+    public void add(long handle) {
+        arena.setNext(handle, TaskArena.NIL);
+        if (tail == TaskArena.NIL) {
+            head = handle;
+        } else {
+            arena.setNext(tail, handle);
+        }
+        tail = handle;
+        ++count;
+        load += arena.getSize(handle);
+    }
+    
+    /**
+     * Detaches the first task of this chain.
+     * 
+     * @return Handle of the task, or NIL when the chain is empty.
+     */
+    public long removeFirst() {
+        long handle = head;
+        if (handle != TaskArena.NIL) {
+            head = arena.getNext(handle);
+            if (head == TaskArena.NIL) {
+                tail = TaskArena.NIL;
+            }
+            --count;
+            load = count == 0 ? 0 : load - arena.getSize(handle);
+        }
+        return handle;
+    }
+    
+    /**
+     * Moves all tasks of given chain to the end of this one. The other chain becomes empty.
+     * 
+     * @param other 
+     */
+    public void addAll(TaskChain other) {
+        if (other.isEmpty()) {
+            return;
+        }
+        if (tail == TaskArena.NIL) {
+            head = other.head;
+        } else {
+            arena.setNext(tail, other.head);
+        }
+        tail = other.tail;
+        count += other.count;
+        load += other.load;
+        other.clear();
+    }
+    
+    /**
+     * Forgets all tasks of this chain (their slots stay in the arena).
+     */
+    public void clear() {
+        head = TaskArena.NIL;
+        tail = TaskArena.NIL;
+        count = 0;
+        load = 0;
+    }
+}
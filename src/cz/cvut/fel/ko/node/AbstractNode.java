@@ -1,8 +1,14 @@
 package cz.cvut.fel.ko.node;
 
 import cz.cvut.fel.ko.Edge;
+import cz.cvut.fel.ko.Task;
+import cz.cvut.fel.ko.TaskArena;
+import cz.cvut.fel.ko.TaskChain;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 
 /**
  * Abstract node implementing common basic behavior.
@@ -13,6 +19,8 @@ public abstract class AbstractNode implements Node {
     private static int lastId = 0;
     private final int id;
     private double iterationLoad = 0;
+    private SelectionStrategy selectionStrategy = new GreedySelection();
+    private long selectionTime = 0; // nanoseconds spent in the selection strategy
     private final List<Edge> edges = new ArrayList<>();
     
     protected AbstractNode () {
@@ -49,6 +57,64 @@ public abstract class AbstractNode implements Node {
         return delta;
     }
     
+    /**
+     * Moves the tasks out of the arena and adds them as heap objects.
+     * 
+     * @param tasks 
+     */
+    @Override
+    public void addTasks(TaskChain tasks) {
+        TaskArena arena = tasks.getArena();
+        List<Task> result = new ArrayList<>();
+        long handle = tasks.removeFirst();
+        while (handle != TaskArena.NIL) {
+            result.add(Task.createTask(arena.getSize(handle)));
+            arena.release(handle);
+            handle = tasks.removeFirst();
+        }
+        addTasks(result);
+    }
+    
+    @Override
+    public double sendTasks(double maxTotalLoad, Edge e) {
+        Collection<Task> tasks = removeTasks(maxTotalLoad);
+        double loadSent = 0;
+        for (Task t: tasks) {
+            loadSent += t.getSize();
+        }
+        e.addTasksToSend(tasks);
+        return loadSent;
+    }
+    
+    @Override
+    public void setSelectionStrategy(SelectionStrategy strategy) {
+        this.selectionStrategy = strategy;
+    }
+
+    @Override
+    public SelectionStrategy getSelectionStrategy() {
+        return selectionStrategy;
+    }
+    
+    @Override
+    public long getSelectionTime() {
+        return selectionTime;
+    }
+    
+    /**
+     * Runs the selection strategy and measures its time.
+     * 
+     * @param available
+     * @param maxTotalLoad
+     * @return 
+     */
+    protected Map<Double, Long> selectTasks(NavigableMap<Double, Long> available, double maxTotalLoad) {
+        long start = System.nanoTime();
+        Map<Double, Long> result = selectionStrategy.select(available, maxTotalLoad);
+        selectionTime += System.nanoTime() - start;
+        return result;
+    }
+    
     @Override
     public void addEdge(Edge e) {
         this.edges.add(e);
@@ -0,0 +1,36 @@
+package cz.cvut.fel.ko.node;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Fast approximation of the greedy selection, which looks at two task sizes 
+ * at most: as many of the biggest fitting tasks as possible, then as many 
+ * tasks fitting the rest as possible.
+ */
+public class ApproximateSelection implements SelectionStrategy {
+
+    @Override
+    public Map<Double, Long> select(NavigableMap<Double, Long> available, double maxTotalLoad) {
+        Map<Double, Long> result = new HashMap<>();
+        Double size = available.floorKey(maxTotalLoad);
+        for(int i = 0; i < 2 && size != null; i++) {
+            long cnt = Math.min(available.get(size), (long) Math.floor(maxTotalLoad / size));
+            if (cnt > 0 && cnt * size > maxTotalLoad) {
+                --cnt;
+            }
+            if (cnt > 0) {
+                result.put(size, cnt);
+                maxTotalLoad -= cnt * size;
+            }
+            size = available.lowerKey(Math.min(size, Math.nextUp(maxTotalLoad)));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "approx";
+    }
+}
@@ -40,6 +40,16 @@ public class ContinuousNode extends AbstractNode {
         return Arrays.asList(Task.createDummyTask(maxTotalLoad));
     }
 
+    /**
+     * Tasks are split, so no selection strategy is used.
+     * 
+     * @return 
+     */
+    @Override
+    public SelectionStrategy getSelectionStrategy() {
+        return null;
+    }
+
     @Override
     public String toString() {
         return getId() + ": " + getLoad();
@@ -4,6 +4,8 @@ import cz.cvut.fel.ko.Task;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
@@ -15,15 +17,20 @@ import java.util.TreeSet;
 public class DiscreteNode extends AbstractNode {
     
     private final TreeSet<Task> tasks = new TreeSet<>();
+    private final TreeMap<Double, Long> sizeCounts = new TreeMap<>(); // number of tasks of each size
         
     @Override
     public void addTasks(Collection<Task> tasks) {
-        this.tasks.addAll(tasks);
+        for(Task t: tasks) {
+            addTask(t);
+        }
     }
     
     @Override
     public void addTask(Task t) {
-        tasks.add(t);
+        if (tasks.add(t)) {
+            sizeCounts.merge(t.getSize(), 1L, Long::sum);
+        }
     }
     
     @Override
@@ -34,12 +41,19 @@ public class DiscreteNode extends AbstractNode {
     @Override
     public Collection<Task> removeTasks(double maxTotalLoad) {
         List<Task> result = new ArrayList<>();
-        Task t = tasks.floor(Task.createDummyTask(maxTotalLoad));
-        while (t != null) {
-            result.add(t);
-            tasks.remove(t);
-            maxTotalLoad -= t.getSize();
-            t = tasks.floor(Task.createDummyTask(maxTotalLoad));
+        for(Map.Entry<Double, Long> selected: selectTasks(sizeCounts, maxTotalLoad).entrySet()) {
+            Task dummy = Task.createDummyTask(selected.getKey());
+            for(long i = 0; i < selected.getValue(); i++) {
+                Task t = tasks.floor(dummy);
+                result.add(t);
+                tasks.remove(t);
+            }
+            long left = sizeCounts.get(selected.getKey()) - selected.getValue();
+            if (left == 0) {
+                sizeCounts.remove(selected.getKey());
+            } else {
+                sizeCounts.put(selected.getKey(), left);
+            }
         }
         return result;
     }
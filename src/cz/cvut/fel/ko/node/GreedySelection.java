@@ -0,0 +1,51 @@
+package cz.cvut.fel.ko.node;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Greedy largest-fit: repeatedly takes the biggest task which still fits.
+ */
+public class GreedySelection implements SelectionStrategy {
+
+    @Override
+    public Map<Double, Long> select(NavigableMap<Double, Long> available, double maxTotalLoad) {
+        Map<Double, Long> result = new HashMap<>();
+        fill(available, maxTotalLoad, result);
+        return result;
+    }
+    
+    /**
+     * Greedily adds tasks not yet in the result until nothing more fits.
+     * 
+     * @param available
+     * @param maxTotalLoad Capacity left for the tasks added.
+     * @param result Selection to extend.
+     * @return Capacity left unused.
+     */
+    static double fill(NavigableMap<Double, Long> available, double maxTotalLoad, Map<Double, Long> result) {
+        Double size = available.floorKey(maxTotalLoad);
+        while (size != null) {
+            // take all fitting tasks of this size at once
+            long free = available.get(size) - result.getOrDefault(size, 0L);
+            long cnt = Math.min(free, (long) Math.floor(maxTotalLoad / size));
+            if (cnt > 0 && cnt * size > maxTotalLoad) {
+                --cnt;
+            }
+            if (cnt > 0) {
+                result.merge(size, cnt, Long::sum);
+                maxTotalLoad -= cnt * size;
+            }
+            // nothing more of this size can be taken, continue with smaller ones
+            Double next = available.floorKey(maxTotalLoad);
+            size = next != null && next >= size ? available.lowerKey(size) : next;
+        }
+        return maxTotalLoad;
+    }
+
+    @Override
+    public String toString() {
+        return "greedy";
+    }
+}
@@ -0,0 +1,48 @@
+package cz.cvut.fel.ko.node;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Best-fit with bounded lookahead: tries each of the few biggest fitting task
+ * sizes as the first pick, completes the rest greedily and keeps the selection
+ * which leaves the least capacity unused.
+ */
+public class LookaheadSelection implements SelectionStrategy {
+    
+    private final int depth;
+
+    /**
+     * @param depth Number of distinct task sizes tried as the first pick, at least 1.
+     */
+    public LookaheadSelection(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Lookahead depth has to be positive (" + depth + ")");
+        }
+        this.depth = depth;
+    }
+
+    @Override
+    public Map<Double, Long> select(NavigableMap<Double, Long> available, double maxTotalLoad) {
+        Map<Double, Long> best = new HashMap<>();
+        double bestLeft = Double.POSITIVE_INFINITY;
+        Double first = available.floorKey(maxTotalLoad);
+        for(int i = 0; i < depth && first != null; i++) {
+            Map<Double, Long> result = new HashMap<>();
+            result.put(first, 1L);
+            double left = GreedySelection.fill(available, maxTotalLoad - first, result);
+            if (left < bestLeft) {
+                best = result;
+                bestLeft = left;
+            }
+            first = available.lowerKey(first);
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        return "lookahead(" + depth + ")";
+    }
+}
@@ -2,6 +2,7 @@ package cz.cvut.fel.ko.node;
 
 import cz.cvut.fel.ko.Edge;
 import cz.cvut.fel.ko.Task;
+import cz.cvut.fel.ko.TaskChain;
 import java.util.Collection;
 
 /**
@@ -31,6 +32,13 @@ public interface Node {
      */
     public void addTasks(Collection<Task> tasks);
     
+    /**
+     * Add multiple off-heap tasks to this node. The chain is emptied.
+     * 
+     * @param tasks 
+     */
+    public void addTasks(TaskChain tasks);
+    
     /**
      * Get current load based on tasks
      * 
@@ -63,6 +71,37 @@ public interface Node {
      */
     public Collection<Task> removeTasks(double maxTotalLoad);
     
+    /**
+     * Removes tasks the same way as removeTasks and loads them into given edge.
+     * 
+     * @param maxTotalLoad
+     * @param e
+     * @return Total load of the removed tasks.
+     */
+    public double sendTasks(double maxTotalLoad, Edge e);
+    
+    /**
+     * Set knapsack heuristic used by removeTasks and sendTasks.
+     * Nodes which can split tasks ignore it.
+     * 
+     * @param strategy 
+     */
+    public void setSelectionStrategy(SelectionStrategy strategy);
+    
+    /**
+     * Get knapsack heuristic used by removeTasks and sendTasks.
+     * 
+     * @return The strategy, or null if this node splits tasks.
+     */
+    public SelectionStrategy getSelectionStrategy();
+    
+    /**
+     * Get total time spent by the knapsack heuristic so far.
+     * 
+     * @return Time in nanoseconds.
+     */
+    public long getSelectionTime();
+    
     /**
      * Returns the difference between the actual load on the node and the optimal
      * load the node would have if arbitrary amount of load could be sent.
@@ -0,0 +1,191 @@
+package cz.cvut.fel.ko.node;
+
+import cz.cvut.fel.ko.Edge;
+import cz.cvut.fel.ko.Task;
+import cz.cvut.fel.ko.TaskArena;
+import cz.cvut.fel.ko.TaskChain;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Same behavior as {@link DiscreteNode}, but the tasks are stored in a
+ * {@link TaskArena}.
+ *
+ * Only a size index is kept on heap. Task sizes are grouped into buckets by
+ * their binary exponent and the top BUCKET_BITS bits of mantissa, so one
+ * bucket spans 1/256 of a power of two. Each bucket keeps its tasks in one
+ * chain and is offered to the selection strategy as tasks of the biggest size
+ * it contains, so a selection never exceeds the requested load. Integer sizes
+ * up to 512 fall into separate buckets and are selected exactly, bigger or
+ * real sizes are rounded up by less than 0.4 %.
+ *
+ * The heap footprint of the node thus depends on the range of task sizes
+ * (at most 256 buckets per power of two), not on the number of tasks.
+ */
+public class OffHeapDiscreteNode extends AbstractNode {
+
+    private static final int BUCKET_BITS = 8;
+
+    private final TaskArena arena;
+    private final Map<Long, Bucket> buckets = new HashMap<>();
+    private final TreeMap<Double, Long> sizeCounts = new TreeMap<>(); // number of tasks in each bucket, by its biggest size
+    private double load = 0;
+
+    /**
+     * Tasks of similar size.
+     */
+    private static class Bucket {
+        final TaskChain tasks;
+        double maxSize; // no task in the chain is bigger
+
+        Bucket(TaskChain tasks, double maxSize) {
+            this.tasks = tasks;
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * Creates node storing its tasks in given arena.
+     *
+     * @param arena
+     */
+    public OffHeapDiscreteNode(TaskArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public void addTask(Task t) {
+        try {
+            addHandle(arena.allocate(t.getSize()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void addTasks(Collection<Task> tasks) {
+        for(Task t: tasks) {
+            addTask(t);
+        }
+    }
+
+    @Override
+    public void addTasks(TaskChain tasks) {
+        long handle = tasks.removeFirst();
+        while (handle != TaskArena.NIL) {
+            addHandle(handle);
+            handle = tasks.removeFirst();
+        }
+    }
+
+    @Override
+    public double getLoad() {
+        return load;
+    }
+
+    /**
+     * Moves the selected tasks out of the arena, so they are created as new
+     * heap objects. Use sendTasks to keep them off-heap.
+     *
+     * @param maxTotalLoad
+     * @return
+     */
+    @Override
+    public Collection<Task> removeTasks(double maxTotalLoad) {
+        TaskChain selected = takeTasks(maxTotalLoad);
+        List<Task> result = new ArrayList<>();
+        long handle = selected.removeFirst();
+        while (handle != TaskArena.NIL) {
+            result.add(Task.createTask(arena.getSize(handle)));
+            arena.release(handle);
+            handle = selected.removeFirst();
+        }
+        return result;
+    }
+
+    @Override
+    public double sendTasks(double maxTotalLoad, Edge e) {
+        TaskChain result = takeTasks(maxTotalLoad);
+        double loadSent = result.getLoad();
+        e.addTasksToSend(result);
+        return loadSent;
+    }
+
+    /**
+     * Detaches tasks selected by the selection strategy. The tasks taken may
+     * be smaller than their bucket size, so the selection is repeated for
+     * the capacity they left until nothing more fits.
+     */
+    private TaskChain takeTasks(double maxTotalLoad) {
+        TaskChain result = new TaskChain(arena);
+        Map<Double, Long> selection = selectTasks(sizeCounts, maxTotalLoad);
+        while (!selection.isEmpty()) {
+            for(Map.Entry<Double, Long> selected: selection.entrySet()) {
+                long id = bucketId(selected.getKey());
+                Bucket bucket = buckets.get(id);
+                for(long i = 0; i < selected.getValue(); i++) {
+                    result.add(bucket.tasks.removeFirst());
+                }
+                if (bucket.tasks.isEmpty()) {
+                    buckets.remove(id);
+                    sizeCounts.remove(selected.getKey());
+                } else {
+                    sizeCounts.put(selected.getKey(), bucket.tasks.getCount());
+                }
+            }
+            selection = selectTasks(sizeCounts, maxTotalLoad - result.getLoad());
+        }
+        load -= result.getLoad();
+        return result;
+    }
+
+    private void addHandle(long handle) {
+        double size = arena.getSize(handle);
+        long id = bucketId(size);
+        Bucket bucket = buckets.get(id);
+        if (bucket == null) {
+            bucket = new Bucket(new TaskChain(arena), size);
+            buckets.put(id, bucket);
+        } else if (size > bucket.maxSize) {
+            sizeCounts.remove(bucket.maxSize);
+            bucket.maxSize = size;
+        }
+        bucket.tasks.add(handle);
+        sizeCounts.put(bucket.maxSize, bucket.tasks.getCount());
+        load += size;
+    }
+
+    /**
+     * Sign, exponent and the top mantissa bits, ordered the same way as the non-negative sizes.
+     */
+    private static long bucketId(double size) {
+        return Double.doubleToLongBits(size) >>> (52 - BUCKET_BITS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getId());
+        sb.append(':');
+        sb.append(' ');
+        sb.append(getLoad());
+        sb.append(" delta (" + getOptimalLoadDelta() + ")");
+        sb.append(' ');
+        sb.append('(');
+        for(Map.Entry<Double, Long> entry: sizeCounts.entrySet()) {
+            sb.append(entry.getValue());
+            sb.append('x');
+            sb.append(entry.getKey());
+            sb.append(' ');
+        }
+        sb.append(')');
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package cz.cvut.fel.ko.node;
+
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Knapsack heuristic deciding which tasks a discrete node sends.
+ * 
+ * Tasks of equal size are interchangeable, so the strategy works with the 
+ * number of tasks of each size only.
+ */
+public interface SelectionStrategy {
+    
+    /**
+     * Selects tasks whose total size does not exceed maxTotalLoad.
+     * 
+     * @param available Number of available tasks for each distinct task size. Must not be modified.
+     * @param maxTotalLoad
+     * @return Number of tasks to send for each selected task size.
+     */
+    public Map<Double, Long> select(NavigableMap<Double, Long> available, double maxTotalLoad);
+}
@@ -0,0 +1,104 @@
+package cz.cvut.fel.ko.node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Subset-sum dynamic programming over task size buckets.
+ *
+ * The capacity is split into a fixed number of units and task sizes are
+ * rounded up to whole units, so every selection found by the DP fits. Tasks
+ * of one size are grouped by binary splitting (1, 2, 4, ... tasks), which keeps
+ * the number of items logarithmic in the number of tasks. When the table would
+ * exceed the cell budget, the greedy selection is used instead, which bounds
+ * the time spent on one selection. The rest of the capacity left by rounding
+ * is filled greedily and the result is never worse than the greedy one.
+ */
+public class SubsetSumSelection implements SelectionStrategy {
+
+    private final int units;
+    private final int cellBudget;
+
+    /**
+     * @param units Resolution of the capacity, at least 1.
+     * @param cellBudget Maximal size of the DP table (items times units).
+     */
+    public SubsetSumSelection(int units, int cellBudget) {
+        if (units < 1) {
+            throw new IllegalArgumentException("Number of units has to be positive (" + units + ")");
+        }
+        this.units = units;
+        this.cellBudget = cellBudget;
+    }
+
+    @Override
+    public Map<Double, Long> select(NavigableMap<Double, Long> available, double maxTotalLoad) {
+        Map<Double, Long> greedy = new HashMap<>();
+        double greedyLeft = GreedySelection.fill(available, maxTotalLoad, greedy);
+        if (greedyLeft == 0 || available.floorKey(maxTotalLoad) == null) {
+            return greedy;
+        }
+
+        // split the buckets into items
+        double unit = maxTotalLoad / units;
+        List<Double> itemSizes = new ArrayList<>();
+        List<Long> itemCounts = new ArrayList<>();
+        List<Integer> itemWeights = new ArrayList<>();
+        for(Map.Entry<Double, Long> bucket: available.headMap(maxTotalLoad, true).entrySet()) {
+            double size = bucket.getKey();
+            int weight = Math.max(1, (int) Math.ceil(size / unit));
+            long cnt = Math.min(bucket.getValue(), units / weight);
+            for(long part = 1; cnt > 0; part *= 2) {
+                long taken = Math.min(part, cnt);
+                itemSizes.add(size);
+                itemCounts.add(taken);
+                itemWeights.add((int) (weight * taken));
+                cnt -= taken;
+            }
+        }
+        int itemCnt = itemSizes.size();
+        if ((long) itemCnt * (units + 1) > cellBudget) {
+            return greedy;
+        }
+
+        // 0/1 knapsack maximizing the real load within the rounded capacity
+        double[] best = new double[units + 1];
+        boolean[][] taken = new boolean[itemCnt][units + 1];
+        for(int i = 0; i < itemCnt; i++) {
+            int weight = itemWeights.get(i);
+            double load = itemSizes.get(i) * itemCounts.get(i);
+            for(int j = units; j >= weight; j--) {
+                if (best[j - weight] + load > best[j]) {
+                    best[j] = best[j - weight] + load;
+                    taken[i][j] = true;
+                }
+            }
+        }
+
+        // reconstruct the selection
+        Map<Double, Long> result = new HashMap<>();
+        int j = units;
+        double load = 0;
+        for(int i = itemCnt - 1; i >= 0; i--) {
+            if (taken[i][j]) {
+                result.merge(itemSizes.get(i), itemCounts.get(i), Long::sum);
+                load += itemSizes.get(i) * itemCounts.get(i);
+                j -= itemWeights.get(i);
+            }
+        }
+        if (load > maxTotalLoad) {
+            // rounding up to units guarantees fit, floating point arithmetic does not
+            return greedy;
+        }
+        double left = GreedySelection.fill(available, maxTotalLoad - load, result);
+        return left < greedyLeft ? result : greedy;
+    }
+
+    @Override
+    public String toString() {
+        return "dp(" + units + ")";
+    }
+}